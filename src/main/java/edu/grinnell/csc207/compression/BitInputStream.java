@@ -6,7 +6,7 @@ import java.io.*;
  * A BitInputStream reads a file bit-by-bit.
  */
 public class BitInputStream {
-    private FileInputStream input;
+    private InputStream input;
     private int digits;     // next set of digits (buffer)
     private int cursor;     // how many digits from buffer have been used
 
@@ -17,7 +17,7 @@ public class BitInputStream {
      * @param file the file to open
      */
     public BitInputStream(String file) throws IOException {
-        input = new FileInputStream(file);
+        input = new BufferedInputStream(new FileInputStream(file));
         nextByte();
     }
 
@@ -36,6 +36,17 @@ public class BitOutputStream {
         this(file, false);
     }
 
+    /**
+     * Constructs a new BitOutputStream attached to the given stream.
+     * @param stream the stream to write to
+     */
+    public BitOutputStream(OutputStream stream) {
+        this.output = new PrintStream(new BufferedOutputStream(stream));
+        this.debug = false;
+        digits = 0;
+        cursor = BYTE_SIZE - 1;
+    }
+
     /**
      * Writes the given bit to the stream.
      * @param bit the bit to write (0 or 1)
@@ -61,7 +72,7 @@ public class BitOutputStream {
      */
     public void writeBits(int bits, int n) {
         for (int i = n - 1; i >= 0; i--) {
-            writeBit((bits >>> i) % 2);
+            writeBit((bits >>> i) & 1);
         }
     }
 
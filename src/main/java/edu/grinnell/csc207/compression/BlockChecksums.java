@@ -0,0 +1,248 @@
+package edu.grinnell.csc207.compression;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * A BlockChecksums holds CRC32C checksums of the uncompressed contents of a
+ * .grin file, one for every fixed-size block of the original data, and
+ * checks decoded data against them as it is produced. It can also compute
+ * the checksums while the data is being encoded, so that they can be
+ * written over placeholders in the header once encoding is done.
+ *
+ * In a .grin file, the checksums are stored as the block size (32 bits),
+ * the number of blocks (32 bits), and then one 32-bit checksum per block.
+ */
+public class BlockChecksums {
+
+    /**
+     * The number of uncompressed bytes covered by each checksum, unless
+     * otherwise specified.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 16;
+
+    /**
+     * The largest block size we are willing to buffer while decoding.
+     */
+    private static final int MAX_BLOCK_SIZE = 1 << 24;
+
+    private int blockSize;
+
+    private int[] sums;
+
+    private CRC32C crc;
+
+    private byte[] block;
+
+    private int blockLength;
+
+    private int blockIndex;
+
+    /**
+     * Constructs a new BlockChecksums from the given checksums.
+     *
+     * @param blockSize the number of bytes covered by each checksum
+     * @param sums      the checksum of each block, in order
+     */
+    private BlockChecksums(int blockSize, int[] sums) {
+        this.blockSize = blockSize;
+        this.sums = sums;
+        this.crc = new CRC32C();
+        this.block = null;
+        this.blockLength = 0;
+        this.blockIndex = 0;
+    }
+
+    /**
+     * Constructs a new BlockChecksums from the given file.
+     *
+     * @param in the input file (as a BitInputStream)
+     */
+    public BlockChecksums(BitInputStream in) {
+        this(in.readBits(32), null);
+        if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Invalid checksum block size: " + blockSize);
+        }
+        int count = in.readBits(32);
+        if (count < 0) {
+            throw new IllegalArgumentException("Invalid checksum count: " + count);
+        }
+        List<Integer> read = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            // Read in halves, since a whole checksum may legitimately be -1
+            int high = in.readBits(16);
+            int low = in.readBits(16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Truncated checksums");
+            }
+            read.add((high << 16) | low);
+        }
+        this.sums = read.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Constructs a new BlockChecksums to be filled in by <code>add</code>
+     * as data of the given length is encoded. Until then, every checksum is
+     * 0, so the checksums can be serialized as placeholders.
+     *
+     * @param length    the number of bytes that will be added
+     * @param blockSize the number of bytes covered by each checksum
+     * @return checksums ready for the data to be added
+     */
+    public static BlockChecksums forLength(long length, int blockSize) {
+        if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Invalid checksum block size: " + blockSize);
+        }
+        long count = (length + blockSize - 1) / blockSize;
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too much data to checksum: " + length);
+        }
+        return new BlockChecksums(blockSize, new int[(int) count]);
+    }
+
+    /**
+     * Writes these checksums to the given file.
+     *
+     * @param out the output file as a BitOutputStream
+     */
+    public void serialize(BitOutputStream out) {
+        out.writeBits(blockSize, 32);
+        out.writeBits(sums.length, 32);
+        for (int sum : sums) {
+            out.writeBits(sum, 32);
+        }
+    }
+
+    /**
+     * Adds the next byte being encoded to the current block, computing the
+     * block's checksum once it is full.
+     *
+     * @param bits the byte being encoded
+     */
+    public void add(int bits) {
+        crc.update(bits);
+        blockLength++;
+        if (blockLength == blockSize) {
+            storeBlock();
+        }
+    }
+
+    /**
+     * Adds the next bytes being encoded, computing the checksum of each
+     * block as it is filled.
+     *
+     * @param data   the bytes being encoded
+     * @param offset the position of the first byte to add
+     * @param length the number of bytes to add
+     */
+    public void add(byte[] data, int offset, int length) {
+        while (length > 0) {
+            int n = Math.min(length, blockSize - blockLength);
+            crc.update(data, offset, n);
+            blockLength += n;
+            offset += n;
+            length -= n;
+            if (blockLength == blockSize) {
+                storeBlock();
+            }
+        }
+    }
+
+    /**
+     * Finishes computing the checksums of the added data and writes them
+     * over the placeholders in an encoded file.
+     *
+     * @param file   the encoded file
+     * @param offset the position in bytes of the first placeholder
+     * @throws IOException              if the file cannot be opened
+     * @throws IllegalArgumentException if the amount of data added does not
+     *                                  match the length given up front
+     */
+    public void rewrite(String file, long offset) throws IOException {
+        if (blockLength > 0) {
+            storeBlock();
+        }
+        if (blockIndex != sums.length) {
+            throw new IllegalArgumentException("Data changed size while being encoded");
+        }
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.seek(offset);
+            for (int sum : sums) {
+                out.writeInt(sum);
+            }
+        }
+    }
+
+    /**
+     * Stores the checksum of the block that was just added and starts the
+     * next block.
+     */
+    private void storeBlock() {
+        if (blockIndex >= sums.length) {
+            throw new IllegalArgumentException("Data changed size while being encoded");
+        }
+        sums[blockIndex] = (int) crc.getValue();
+        crc.reset();
+        blockIndex++;
+        blockLength = 0;
+    }
+
+    /**
+     * Adds the next decoded byte to the current block, checking the block
+     * once it is full.
+     *
+     * @param bits the decoded byte
+     * @throws IllegalArgumentException if the block does not match its
+     *                                  checksum
+     */
+    public void update(int bits) {
+        if (block == null) {
+            block = new byte[blockSize];
+        }
+        block[blockLength] = (byte) bits;
+        blockLength++;
+        if (blockLength == blockSize) {
+            checkBlock();
+        }
+    }
+
+    /**
+     * Checks the final, possibly partial, block and makes sure that no
+     * blocks are missing. Call this once all of the data has been decoded.
+     *
+     * @throws IllegalArgumentException if the data does not match the
+     *                                  checksums
+     */
+    public void finish() {
+        if (blockLength > 0) {
+            checkBlock();
+        }
+        if (blockIndex != sums.length) {
+            throw new IllegalArgumentException("Data ends after " + blockIndex + " of "
+                    + sums.length + " checksummed blocks");
+        }
+    }
+
+    /**
+     * Checks the buffered block against its checksum and starts the next
+     * block.
+     *
+     * @throws IllegalArgumentException if the block does not match its
+     *                                  checksum
+     */
+    private void checkBlock() {
+        if (blockIndex >= sums.length) {
+            throw new IllegalArgumentException("Data continues past the last checksummed block");
+        }
+        crc.reset();
+        crc.update(block, 0, blockLength);
+        if ((int) crc.getValue() != sums[blockIndex]) {
+            throw new IllegalArgumentException("Checksum mismatch in block " + blockIndex);
+        }
+        blockIndex++;
+        blockLength = 0;
+    }
+}
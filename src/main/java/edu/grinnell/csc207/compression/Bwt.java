@@ -0,0 +1,508 @@
+package edu.grinnell.csc207.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A Bwt compresses data for high ratio by splitting it into large blocks
+ * and running each one through a Burrows-Wheeler transform, move-to-front,
+ * and zero-run encoding before coding the result with a Huffman tree.
+ *
+ * The transform sorts the suffixes of a block with a linear-time suffix
+ * array construction (SA-IS). Blocks are independent, so the input is
+ * read a batch of blocks at a time, and the blocks in a batch are
+ * transformed in parallel before being written out in order. A batch
+ * holds one block per processor, or fewer if that many blocks would not
+ * fit in half of the heap while they are transformed.
+ *
+ * After move-to-front, runs of zeros are written in bijective base 2 with
+ * the values 0 (RUNA) and 1 (RUNB), and every other index v is written as
+ * 256 + v, leaving 256 as the EOF that ends the block. All of these fit in
+ * the 9 bits used by a serialized HuffmanTree.
+ *
+ * Each block in an encoded stream is a 1 bit, the block length (32 bits),
+ * the row of the original block in the sorted suffixes (32 bits), the
+ * block's Huffman tree, and then the codes, ending with the EOF code. A 0
+ * bit follows the last block.
+ */
+public class Bwt {
+
+    /**
+     * The block size used unless otherwise specified.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    /**
+     * The largest supported block size.
+     */
+    public static final int MAX_BLOCK_SIZE = 1 << 24;
+
+    private static final int RUNA = 0;
+
+    private static final int RUNB = 1;
+
+    private static final int EOF = 256;
+
+    /**
+     * About how many bytes of memory a block takes while it is transformed,
+     * per byte of the block: the block itself, the int arrays used to build
+     * its suffix array, and the transformed output.
+     */
+    private static final int WORKING_BYTES = 24;
+
+    private int blockSize;
+
+    /**
+     * A block after the transforms, ready to be Huffman coded.
+     *
+     * @param length  the number of bytes in the original block
+     * @param primary the row of the original block in the sorted suffixes
+     * @param symbols the zero-run encoded move-to-front indices
+     */
+    private record Block(int length, int primary, char[] symbols) {
+    }
+
+    /**
+     * Constructs a new Bwt encoder.
+     *
+     * @param blockSize the number of bytes in each block, at most
+     *                  MAX_BLOCK_SIZE
+     */
+    public Bwt(int blockSize) {
+        if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Invalid block size: " + blockSize);
+        }
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Encodes the data from the given stream and writes it to the given
+     * file.
+     *
+     * @param in        the data to compress.
+     * @param out       the file to write the compressed output to.
+     * @param checksums the checksums to add the data to as it is read, or
+     *                  null to skip checksumming.
+     * @throws IOException if the data cannot be read
+     */
+    public void encode(InputStream in, BitOutputStream out, BlockChecksums checksums)
+            throws IOException {
+        Runtime runtime = Runtime.getRuntime();
+        long fits = runtime.maxMemory() / 2 / ((long) WORKING_BYTES * blockSize);
+        int batchSize = (int) Math.max(1, Math.min(runtime.availableProcessors(), fits));
+        boolean done = false;
+        while (!done) {
+            List<byte[]> batch = new ArrayList<>();
+            while (!done && batch.size() < batchSize) {
+                byte[] data = in.readNBytes(blockSize);
+                if (checksums != null) {
+                    checksums.add(data, 0, data.length);
+                }
+                if (data.length > 0) {
+                    batch.add(data);
+                }
+                done = data.length < blockSize;
+            }
+            List<Block> blocks = batch.parallelStream().map(Bwt::transform).toList();
+            for (Block block : blocks) {
+                writeBlock(block, out);
+            }
+        }
+        out.writeBit(0);
+        out.close();
+    }
+
+    /**
+     * Huffman codes a transformed block and writes it to the given file.
+     *
+     * @param block the transformed block.
+     * @param out   the file to write the block to.
+     */
+    private static void writeBlock(Block block, BitOutputStream out) {
+        long[] freqs = new long[512];
+        for (char symbol : block.symbols()) {
+            freqs[symbol]++;
+        }
+        HuffmanTree tree = new HuffmanTree(freqs);
+        out.writeBit(1);
+        out.writeBits(block.length(), 32);
+        out.writeBits(block.primary(), 32);
+        tree.serialize(out);
+        for (char symbol : block.symbols()) {
+            tree.encodeBitSequence(out, (short) symbol);
+        }
+        tree.encodeBitSequence(out, (short) EOF);
+    }
+
+    /**
+     * Decodes a Bwt stream from the given file, writing the decompressed
+     * bytes to the given output stream.
+     *
+     * @param in        the file to decompress.
+     * @param out       the file to write the decompressed output to.
+     * @param checksums the checksums of the decompressed data, or null to
+     *                  skip checking.
+     * @throws IllegalArgumentException if the stream is malformed or the
+     *                                  decompressed data does not match
+     *                                  the checksums
+     */
+    public static void decode(BitInputStream in, BitOutputStream out, BlockChecksums checksums) {
+        int more = in.readBit();
+        while (more == 1) {
+            byte[] block = decodeBlock(in);
+            for (byte bits : block) {
+                out.writeBits(bits, 8);
+                if (checksums != null) {
+                    checksums.update(bits);
+                }
+            }
+            more = in.readBit();
+        }
+        if (more != 0) {
+            throw new IllegalArgumentException("Truncated block stream");
+        }
+        in.close();
+        out.close();
+        if (checksums != null) {
+            checksums.finish();
+        }
+    }
+
+    /**
+     * Reads one block from the given file and undoes its transforms.
+     *
+     * @param in the file to read from.
+     * @return the original bytes of the block
+     */
+    private static byte[] decodeBlock(BitInputStream in) {
+        int length = in.readBits(32);
+        int primary = in.readBits(32);
+        if (length <= 0 || length > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Invalid block length: " + length);
+        }
+        if (primary < 1 || primary > length) {
+            throw new IllegalArgumentException("Invalid primary index: " + primary);
+        }
+        HuffmanTree tree = new HuffmanTree(in);
+        byte[] order = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            order[i] = (byte) i;
+        }
+        byte[] transformed = new byte[length];
+        int filled = 0;
+        int run = 0;
+        int weight = 1;
+        short symbol = tree.decodeBitSequence(in);
+        while (true) {
+            if (symbol == RUNA || symbol == RUNB) {
+                run += symbol == RUNA ? weight : 2 * weight;
+                weight *= 2;
+                if (run > length - filled) {
+                    throw new IllegalArgumentException("Block longer than its length");
+                }
+            } else {
+                // A run of zeros repeats the byte at the front of the list
+                Arrays.fill(transformed, filled, filled + run, order[0]);
+                filled += run;
+                run = 0;
+                weight = 1;
+                if (symbol == EOF) {
+                    break;
+                }
+                if (filled == length) {
+                    throw new IllegalArgumentException("Block longer than its length");
+                }
+                int index = symbol - EOF;
+                if (index <= 0) {
+                    throw new IllegalArgumentException("Invalid symbol: " + symbol);
+                }
+                byte bits = order[index];
+                System.arraycopy(order, 0, order, 1, index);
+                order[0] = bits;
+                transformed[filled] = bits;
+                filled++;
+            }
+            symbol = tree.decodeBitSequence(in);
+        }
+        if (filled != length) {
+            throw new IllegalArgumentException("Block shorter than its length");
+        }
+        return inverse(transformed, primary);
+    }
+
+    /**
+     * Runs one block of data through the transforms.
+     *
+     * @param data the block to compress.
+     * @return the transformed block
+     */
+    private static Block transform(byte[] data) {
+        int length = data.length;
+        int[] text = new int[length];
+        for (int i = 0; i < length; i++) {
+            text[i] = data[i] & 0xFF;
+        }
+        int[] suffixes = suffixArray(text, 255);
+
+        // Row 0 is the empty suffix, which comes first and is preceded by the
+        // last byte; the row holding the whole block is preceded by nothing
+        // and is left out
+        byte[] transformed = new byte[length];
+        transformed[0] = data[length - 1];
+        int primary = 0;
+        int filled = 1;
+        for (int row = 1; row <= length; row++) {
+            int suffix = suffixes[row - 1];
+            if (suffix == 0) {
+                primary = row;
+            } else {
+                transformed[filled] = data[suffix - 1];
+                filled++;
+            }
+        }
+
+        byte[] order = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            order[i] = (byte) i;
+        }
+        char[] symbols = new char[length];
+        int count = 0;
+        int run = 0;
+        for (byte bits : transformed) {
+            int index = 0;
+            while (order[index] != bits) {
+                index++;
+            }
+            if (index == 0) {
+                run++;
+                continue;
+            }
+            count = writeRun(symbols, count, run);
+            run = 0;
+            System.arraycopy(order, 0, order, 1, index);
+            order[0] = bits;
+            symbols[count] = (char) (EOF + index);
+            count++;
+        }
+        count = writeRun(symbols, count, run);
+        return new Block(length, primary, Arrays.copyOf(symbols, count));
+    }
+
+    /**
+     * Writes a run of zeros in bijective base 2, least significant digit
+     * first, using RUNA for 1 and RUNB for 2. This never takes more space
+     * than the run itself.
+     *
+     * @param symbols the array to write to.
+     * @param count   the number of symbols already written.
+     * @param run     the length of the run.
+     * @return the number of symbols written, including the run
+     */
+    private static int writeRun(char[] symbols, int count, int run) {
+        while (run > 0) {
+            run--;
+            symbols[count] = (char) ((run & 1) == 0 ? RUNA : RUNB);
+            count++;
+            run >>= 1;
+        }
+        return count;
+    }
+
+    /**
+     * Undoes the Burrows-Wheeler transform of a block.
+     *
+     * @param transformed the transformed block, without the end marker.
+     * @param primary     the row of the end marker.
+     * @return the original block
+     */
+    private static byte[] inverse(byte[] transformed, int primary) {
+        int length = transformed.length;
+        int[] firsts = new int[256];
+        for (byte bits : transformed) {
+            firsts[bits & 0xFF]++;
+        }
+        // Row 0 starts with the end marker, so the first row for each byte is
+        // one more than the number of smaller bytes
+        int total = 1;
+        for (int i = 0; i < 256; i++) {
+            int count = firsts[i];
+            firsts[i] = total;
+            total += count;
+        }
+        int[] next = new int[length + 1];
+        for (int row = 0; row <= length; row++) {
+            if (row != primary) {
+                next[row] = firsts[lastByte(transformed, primary, row) & 0xFF]++;
+            }
+        }
+        byte[] original = new byte[length];
+        int row = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            original[i] = lastByte(transformed, primary, row);
+            row = next[row];
+        }
+        return original;
+    }
+
+    /**
+     * Finds the last byte of a row of the sorted suffixes, skipping over the
+     * row of the end marker.
+     *
+     * @param transformed the transformed block, without the end marker.
+     * @param primary     the row of the end marker.
+     * @param row         the row, other than primary.
+     * @return the last byte of the row
+     */
+    private static byte lastByte(byte[] transformed, int primary, int row) {
+        return transformed[row < primary ? row : row - 1];
+    }
+
+    /**
+     * Builds the suffix array of the given text with the SA-IS algorithm,
+     * which takes time linear in the length of the text.
+     *
+     * @param text  the text, with every value between 0 and upper.
+     * @param upper the largest value that may appear in the text.
+     * @return the starting positions of the suffixes of text, in sorted order
+     */
+    private static int[] suffixArray(int[] text, int upper) {
+        int n = text.length;
+        if (n == 0) {
+            return new int[0];
+        } else if (n == 1) {
+            return new int[] {0};
+        } else if (n == 2) {
+            return text[0] < text[1] ? new int[] {0, 1} : new int[] {1, 0};
+        }
+
+        // A suffix is S-type if it is smaller than the suffix after it
+        boolean[] stype = new boolean[n];
+        for (int i = n - 2; i >= 0; i--) {
+            stype[i] = text[i] == text[i + 1] ? stype[i + 1] : text[i] < text[i + 1];
+        }
+        int[] sumL = new int[upper + 1];
+        int[] sumS = new int[upper + 1];
+        for (int i = 0; i < n; i++) {
+            if (!stype[i]) {
+                sumS[text[i]]++;
+            } else {
+                sumL[text[i] + 1]++;
+            }
+        }
+        for (int i = 0; i <= upper; i++) {
+            sumS[i] += sumL[i];
+            if (i < upper) {
+                sumL[i + 1] += sumS[i];
+            }
+        }
+
+        // LMS suffixes are S-type suffixes right after an L-type one
+        int[] lmsMap = new int[n + 1];
+        Arrays.fill(lmsMap, -1);
+        int m = 0;
+        for (int i = 1; i < n; i++) {
+            if (!stype[i - 1] && stype[i]) {
+                lmsMap[i] = m;
+                m++;
+            }
+        }
+        int[] lms = new int[m];
+        for (int i = 1, j = 0; i < n; i++) {
+            if (!stype[i - 1] && stype[i]) {
+                lms[j] = i;
+                j++;
+            }
+        }
+
+        int[] sa = new int[n];
+        induce(text, upper, stype, sumL, sumS, lms, sa);
+        if (m > 0) {
+            int[] sortedLms = new int[m];
+            for (int i = 0, j = 0; i < n; i++) {
+                if (lmsMap[sa[i]] != -1) {
+                    sortedLms[j] = sa[i];
+                    j++;
+                }
+            }
+            // Name each LMS substring by its rank, then sort the names
+            // recursively to get the order of the LMS suffixes
+            int[] names = new int[m];
+            int upperName = 0;
+            names[lmsMap[sortedLms[0]]] = 0;
+            for (int i = 1; i < m; i++) {
+                int l = sortedLms[i - 1];
+                int r = sortedLms[i];
+                int endL = lmsMap[l] + 1 < m ? lms[lmsMap[l] + 1] : n;
+                int endR = lmsMap[r] + 1 < m ? lms[lmsMap[r] + 1] : n;
+                boolean same = true;
+                if (endL - l != endR - r) {
+                    same = false;
+                } else {
+                    while (l < endL && text[l] == text[r]) {
+                        l++;
+                        r++;
+                    }
+                    if (l == n || text[l] != text[r]) {
+                        same = false;
+                    }
+                }
+                if (!same) {
+                    upperName++;
+                }
+                names[lmsMap[sortedLms[i]]] = upperName;
+            }
+            int[] namesSa = suffixArray(names, upperName);
+            for (int i = 0; i < m; i++) {
+                sortedLms[i] = lms[namesSa[i]];
+            }
+            induce(text, upper, stype, sumL, sumS, sortedLms, sa);
+        }
+        return sa;
+    }
+
+    /**
+     * Fills in a suffix array by induced sorting, starting from LMS
+     * suffixes given in sorted order.
+     *
+     * @param text  the text.
+     * @param upper the largest value that may appear in the text.
+     * @param stype whether each suffix is S-type.
+     * @param sumL  the first slot of the L-type suffixes for each value.
+     * @param sumS  the first slot of the S-type suffixes for each value.
+     * @param lms   the LMS suffixes, in sorted order.
+     * @param sa    the suffix array to fill in.
+     */
+    private static void induce(int[] text, int upper, boolean[] stype, int[] sumL, int[] sumS,
+            int[] lms, int[] sa) {
+        int n = text.length;
+        Arrays.fill(sa, -1);
+        int[] buf = Arrays.copyOf(sumS, upper + 1);
+        for (int d : lms) {
+            if (d != n) {
+                sa[buf[text[d]]] = d;
+                buf[text[d]]++;
+            }
+        }
+        buf = Arrays.copyOf(sumL, upper + 1);
+        sa[buf[text[n - 1]]] = n - 1;
+        buf[text[n - 1]]++;
+        for (int i = 0; i < n; i++) {
+            int v = sa[i];
+            if (v >= 1 && !stype[v - 1]) {
+                sa[buf[text[v - 1]]] = v - 1;
+                buf[text[v - 1]]++;
+            }
+        }
+        buf = Arrays.copyOf(sumL, upper + 1);
+        for (int i = n - 1; i >= 0; i--) {
+            int v = sa[i];
+            if (v >= 1 && stype[v - 1]) {
+                buf[text[v - 1] + 1]--;
+                sa[buf[text[v - 1] + 1]] = v - 1;
+            }
+        }
+    }
+}
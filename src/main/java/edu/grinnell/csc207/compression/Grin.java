@@ -1,13 +1,112 @@
 package edu.grinnell.csc207.compression;
 
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 
 /**
  * The driver for the Grin compression program.
  */
 public class Grin {
+    /**
+     * The magic number at the start of a plain .grin file.
+     */
+    public static final int MAGIC_NUMBER = 1846;
+
+    /**
+     * The magic number at the start of a .grin file whose header carries a
+     * byte of flags describing optional format extensions.
+     */
+    public static final int MAGIC_NUMBER_EXTENDED = 1847;
+
+    /**
+     * Header flag denoting that the file stores CRC32C checksums of its
+     * uncompressed data.
+     */
+    public static final int FLAG_CHECKSUM = 1;
+
+    /**
+     * Header flag denoting that the data is an Lz77 stream rather than a
+     * single Huffman tree followed by byte codes.
+     */
+    public static final int FLAG_LZ77 = 2;
+
+    /**
+     * Header flag denoting that the data is a Bwt stream of independently
+     * transformed blocks.
+     */
+    public static final int FLAG_BWT = 4;
+
+    /**
+     * Every header flag that this version of the program understands.
+     */
+    private static final int KNOWN_FLAGS = FLAG_CHECKSUM | FLAG_LZ77 | FLAG_BWT;
+
+    /**
+     * The position in bytes of the first checksum in a .grin file with
+     * checksums: after the magic number (4), the flags (1), the block size
+     * (4), and the number of blocks (4).
+     */
+    private static final long CHECKSUMS_OFFSET = 13;
+
+    /**
+     * The number of consecutive bytes read at each sampled position when
+     * estimating a frequency map.
+     */
+    private static final int SAMPLE_CHUNK_SIZE = 4096;
+
+    /**
+     * The encoded length of some data, in bits, when using a tree built
+     * from a sample of the data and when using a tree built from all of it.
+     * 
+     * @param sampledBits the length with the sampled tree
+     * @param exactBits   the length with the exact tree
+     */
+    public record SampleReport(long sampledBits, long exactBits) {
+
+        /**
+         * Computes how much larger the sampled encoding is than the exact
+         * one, as a fraction of the exact encoding.
+         * 
+         * @return the relative size difference
+         */
+        public double loss() {
+            return exactBits == 0 ? 0 : (double) (sampledBits - exactBits) / exactBits;
+        }
+    }
+
+    /**
+     * The contents of a .grin header: its flags, along with the checksums
+     * if the file has them.
+     */
+    private record Header(int flags, BlockChecksums checksums) {
+    }
+
+    /**
+     * One of the ways of encoding the data that follows a .grin header.
+     */
+    private interface BodyEncoder {
+
+        /**
+         * Encodes the input and writes it to the given file, then closes
+         * the file.
+         * 
+         * @param out       the file to write the compressed output to.
+         * @param checksums the checksums to add the input to as it is
+         *                  encoded, or null to skip checksumming.
+         * @throws IOException if the input cannot be read
+         */
+        void encode(BitOutputStream out, BlockChecksums checksums) throws IOException;
+    }
+
     /**
      * Decodes the .grin file denoted by infile and writes the output to the
      * .grin file denoted by outfile.
@@ -19,12 +118,93 @@ public class Grin {
     public static void decode(String infile, String outfile) throws IOException {
         BitInputStream in = new BitInputStream(infile);
         BitOutputStream out = new BitOutputStream(outfile);
+        Header header = readHeader(in);
+        decodeBody(in, out, header);
+    }
+
+    /**
+     * Decodes the .grin file denoted by infile without writing the output
+     * anywhere, checking the decoded data against the checksums stored in
+     * the file.
+     * 
+     * @param infile the file to verify
+     * @throws IOException              if the file cannot be opened
+     * @throws IllegalArgumentException if the file has no checksums or its
+     *                                  data does not match them
+     */
+    public static void verify(String infile) throws IOException {
+        BitInputStream in = new BitInputStream(infile);
+        Header header = readHeader(in);
+        if (header.checksums() == null) {
+            in.close();
+            throw new IllegalArgumentException(infile + " has no checksums");
+        }
+        BitOutputStream out = new BitOutputStream(OutputStream.nullOutputStream());
+        decodeBody(in, out, header);
+    }
+
+    /**
+     * Decodes everything after the header of a .grin file, using the
+     * pipeline that the header's flags call for.
+     * 
+     * @param in     the file to decode, positioned just after its header
+     * @param out    the file to output to
+     * @param header the header of the file
+     */
+    private static void decodeBody(BitInputStream in, BitOutputStream out, Header header) {
+        if ((header.flags() & FLAG_LZ77) != 0) {
+            Lz77.decode(in, out, header.checksums());
+        } else if ((header.flags() & FLAG_BWT) != 0) {
+            Bwt.decode(in, out, header.checksums());
+        } else {
+            HuffmanTree tree = new HuffmanTree(in);
+            tree.decode(in, out, header.checksums());
+        }
+    }
+
+    /**
+     * Reads the magic number and any header extensions from the start of a
+     * .grin file.
+     * 
+     * @param in the input file (as a BitInputStream)
+     * @return the header of the file
+     */
+    private static Header readHeader(BitInputStream in) {
         int magicNumber = in.readBits(32);
-        if (magicNumber != 1846) {
-            throw new IllegalArgumentException();
+        if (magicNumber == MAGIC_NUMBER) {
+            return new Header(0, null);
+        } else if (magicNumber != MAGIC_NUMBER_EXTENDED) {
+            throw new IllegalArgumentException("Not a .grin file");
+        }
+        int flags = in.readBits(8);
+        if (flags < 0 || (flags & ~KNOWN_FLAGS) != 0
+                || (flags & (FLAG_LZ77 | FLAG_BWT)) == (FLAG_LZ77 | FLAG_BWT)) {
+            throw new IllegalArgumentException("Unsupported header flags: " + flags);
+        }
+        BlockChecksums checksums = null;
+        if ((flags & FLAG_CHECKSUM) != 0) {
+            checksums = new BlockChecksums(in);
+        }
+        return new Header(flags, checksums);
+    }
+
+    /**
+     * Writes the magic number and any header extensions to the start of a
+     * .grin file. Files without any flags get the plain header.
+     * 
+     * @param out    the output file as a BitOutputStream
+     * @param header the header to write
+     */
+    private static void writeHeader(BitOutputStream out, Header header) {
+        if (header.flags() == 0) {
+            out.writeBits(MAGIC_NUMBER, 32);
+            return;
+        }
+        out.writeBits(MAGIC_NUMBER_EXTENDED, 32);
+        out.writeBits(header.flags(), 8);
+        if ((header.flags() & FLAG_CHECKSUM) != 0) {
+            header.checksums().serialize(out);
         }
-        HuffmanTree tree = new HuffmanTree(in);
-        tree.decode(in, out);
     }
 
     /**
@@ -50,6 +230,48 @@ public class Grin {
         return freqs;
     }
 
+    /**
+     * Creates a table, indexed by 8-bit sequence, of the number of
+     * occurrences of those sequences in a strided random sample of the
+     * given file. The file
+     * is split into equal strides, and one chunk is read from a random
+     * position within each stride, so that only about sampleFraction of the
+     * file is read. Every 8-bit sequence is given at least one occurrence,
+     * so that a tree built from the table can encode bytes that were not
+     * sampled. Counts are longs, since a large sample of a large file can
+     * hold more than Integer.MAX_VALUE copies of one byte.
+     * 
+     * @param file           the file to read
+     * @param sampleFraction the fraction of the file to read, in (0, 1]
+     * @return the estimated frequency of each byte in the given file
+     * @throws IOException if the file cannot be opened
+     */
+    public static long[] createFrequencyMap(String file, double sampleFraction)
+            throws IOException {
+        if (!(sampleFraction > 0 && sampleFraction <= 1)) {
+            throw new IllegalArgumentException("Invalid sample fraction: " + sampleFraction);
+        }
+        long[] freqs = new long[256];
+        Arrays.fill(freqs, 1);
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            long length = in.length();
+            long stride = Math.max(SAMPLE_CHUNK_SIZE, (long) (SAMPLE_CHUNK_SIZE / sampleFraction));
+            // Seeded by the length so that encoding the same file twice gives the same output
+            Random random = new Random(length);
+            byte[] chunk = new byte[SAMPLE_CHUNK_SIZE];
+            for (long start = 0; start < length; start += stride) {
+                long window = Math.min(stride, length - start);
+                int size = (int) Math.min(SAMPLE_CHUNK_SIZE, window);
+                in.seek(start + random.nextLong(window - size + 1));
+                in.readFully(chunk, 0, size);
+                for (int i = 0; i < size; i++) {
+                    freqs[chunk[i] & 0xFF]++;
+                }
+            }
+        }
+        return freqs;
+    }
+
     /**
      * Encodes the given file denoted by infile and writes the output to the
      * .grin file denoted by outfile.
@@ -59,12 +281,152 @@ public class Grin {
      * @throws IOException if either of the files cannot be opened
      */
     public static void encode(String infile, String outfile) throws IOException {
+        encode(infile, outfile, false);
+    }
+
+    /**
+     * Encodes the given file denoted by infile and writes the output to the
+     * .grin file denoted by outfile, optionally storing checksums of the
+     * uncompressed data so that the output can later be verified.
+     * 
+     * @param infile   the file to encode.
+     * @param outfile  the file to write the output to.
+     * @param checksum whether to store checksums in the output
+     * @throws IOException if either of the files cannot be opened
+     */
+    public static void encode(String infile, String outfile, boolean checksum)
+            throws IOException {
         BitInputStream in = new BitInputStream(infile);
-        BitOutputStream out = new BitOutputStream(outfile);
         HuffmanTree tree = new HuffmanTree(createFrequencyMap(infile));
-        out.writeBits(1846, 32);
-        tree.serialize(out);
-        tree.encode(in, out);
+        encodeWithHeader(infile, outfile, checksum, 0, (out, checksums) -> {
+            tree.serialize(out);
+            tree.encode(in, out, checksums);
+        });
+    }
+
+    /**
+     * Encodes the given file denoted by infile like <code>encode</code>, but
+     * builds the Huffman tree from a sample of the file rather than reading
+     * all of it first. Reports how many more bits the encoded data takes
+     * than it would have with a tree built from the whole file.
+     * 
+     * @param infile         the file to encode.
+     * @param outfile        the file to write the output to.
+     * @param checksum       whether to store checksums in the output
+     * @param sampleFraction the fraction of the file to sample, in (0, 1]
+     * @return the encoded length of the data with the sampled tree and with
+     *         an exact tree
+     * @throws IOException if either of the files cannot be opened
+     */
+    public static SampleReport encodeSampled(String infile, String outfile, boolean checksum,
+            double sampleFraction) throws IOException {
+        BitInputStream in = new BitInputStream(infile);
+        HuffmanTree tree = new HuffmanTree(createFrequencyMap(infile, sampleFraction));
+        long[] freqs = new long[256];
+        encodeWithHeader(infile, outfile, checksum, 0, (out, checksums) -> {
+            tree.serialize(out);
+            while (in.hasBits()) {
+                short bits = (short) in.readBits(8);
+                tree.encodeBitSequence(out, bits);
+                freqs[bits]++;
+                if (checksums != null) {
+                    checksums.add(bits);
+                }
+            }
+            tree.encodeBitSequence(out, (short) 256);
+            in.close();
+            out.close();
+        });
+        HuffmanTree exactTree = new HuffmanTree(freqs);
+        return new SampleReport(tree.encodedLength(freqs), exactTree.encodedLength(freqs));
+    }
+
+    /**
+     * Encodes the given file denoted by infile with an Lz77 stage ahead of
+     * the Huffman coding and writes the output to the .grin file denoted by
+     * outfile. The file is streamed through the encoder.
+     * 
+     * @param infile     the file to encode.
+     * @param outfile    the file to write the output to.
+     * @param checksum   whether to store checksums in the output
+     * @param windowBits the match window size as a power of two
+     * @param effort     how hard to look for matches
+     * @throws IOException if either of the files cannot be opened
+     */
+    public static void encodeLz77(String infile, String outfile, boolean checksum,
+            int windowBits, int effort) throws IOException {
+        Lz77 lz77 = new Lz77(windowBits, effort);
+        try (InputStream in = new FileInputStream(infile)) {
+            encodeWithHeader(infile, outfile, checksum, FLAG_LZ77,
+                    (out, checksums) -> lz77.encode(in, out, checksums));
+        }
+    }
+
+    /**
+     * Encodes the given file denoted by infile with Burrows-Wheeler,
+     * move-to-front, and zero-run transforms ahead of the Huffman coding
+     * and writes the output to the .grin file denoted by outfile. The file
+     * is read a batch of blocks at a time.
+     * 
+     * @param infile    the file to encode.
+     * @param outfile   the file to write the output to.
+     * @param checksum  whether to store checksums in the output
+     * @param blockSize the number of bytes in each independently
+     *                  transformed block
+     * @throws IOException if either of the files cannot be opened
+     */
+    public static void encodeBwt(String infile, String outfile, boolean checksum, int blockSize)
+            throws IOException {
+        Bwt bwt = new Bwt(blockSize);
+        try (InputStream in = new FileInputStream(infile)) {
+            encodeWithHeader(infile, outfile, checksum, FLAG_BWT,
+                    (out, checksums) -> bwt.encode(in, out, checksums));
+        }
+    }
+
+    /**
+     * Writes the header for the given flags to the .grin file denoted by
+     * outfile and then encodes the body with the given encoder. Checksums,
+     * if any, are computed while the body is encoded and written over
+     * placeholders in the header afterwards, so they do not cost an extra
+     * read of the file.
+     * 
+     * @param infile   the file being encoded.
+     * @param outfile  the file to write the output to.
+     * @param checksum whether to store checksums in the output
+     * @param flags    the header flags for the encoding, without
+     *                 FLAG_CHECKSUM
+     * @param body     the encoder for the data after the header
+     * @throws IOException if either of the files cannot be opened
+     */
+    private static void encodeWithHeader(String infile, String outfile, boolean checksum,
+            int flags, BodyEncoder body) throws IOException {
+        BitOutputStream out = new BitOutputStream(outfile);
+        BlockChecksums checksums = null;
+        if (checksum) {
+            checksums = BlockChecksums.forLength(Files.size(Path.of(infile)),
+                    BlockChecksums.DEFAULT_BLOCK_SIZE);
+            flags |= FLAG_CHECKSUM;
+        }
+        writeHeader(out, new Header(flags, checksums));
+        body.encode(out, checksums);
+        if (checksums != null) {
+            checksums.rewrite(outfile, CHECKSUMS_OFFSET);
+        }
+    }
+
+    /**
+     * Prints the usage message for the program.
+     */
+    private static void printUsage() {
+        System.out.println("Usage: java Grin encode [--checksum] [--sample=<fraction>] "
+                + "<infile> <outfile>");
+        System.out.println("       java Grin encode [--checksum] --lz77 [--window=<bits>] "
+                + "[--effort=<1-9>] <infile> <outfile>");
+        System.out.println("       java Grin encode [--checksum] --bwt [--block=<bytes>] "
+                + "<infile> <outfile>");
+        System.out.println("       java Grin decode <infile> <outfile>");
+        System.out.println("       java Grin verify <infile>");
     }
 
     /**
@@ -74,18 +436,98 @@ public class Grin {
      * @throws IOException if either of the filenames provided can't be opened
      */
     public static void main(String[] args) throws IOException {
-        if (args.length != 3) {
-            System.out.println("Usage: java Grin <encode|decode> <infile> <outfile>");
+        if (args.length == 2 && args[0].equals("verify")) {
+            try {
+                verify("files/" + args[1]);
+                System.out.println("OK");
+            } catch (IllegalArgumentException | IOException e) {
+                System.out.println("FAILED: " + e.getMessage());
+            }
+            return;
+        }
+        boolean checksum = false;
+        double sampleFraction = 1;
+        boolean lz77 = false;
+        boolean lz77Options = false;
+        int windowBits = Lz77.DEFAULT_WINDOW_BITS;
+        int effort = Lz77.DEFAULT_EFFORT;
+        boolean bwt = false;
+        boolean bwtOptions = false;
+        int blockSize = Bwt.DEFAULT_BLOCK_SIZE;
+        int next = 1;
+        while (args.length > next && args[0].equals("encode") && args[next].startsWith("--")) {
+            try {
+                if (args[next].equals("--checksum")) {
+                    checksum = true;
+                } else if (args[next].startsWith("--sample=")) {
+                    sampleFraction = Double.parseDouble(args[next].substring(9));
+                    if (!(sampleFraction > 0 && sampleFraction <= 1)) {
+                        printUsage();
+                        return;
+                    }
+                } else if (args[next].equals("--lz77")) {
+                    lz77 = true;
+                } else if (args[next].startsWith("--window=")) {
+                    windowBits = Integer.parseInt(args[next].substring(9));
+                    lz77Options = true;
+                    if (windowBits < Lz77.MIN_WINDOW_BITS || windowBits > Lz77.MAX_WINDOW_BITS) {
+                        printUsage();
+                        return;
+                    }
+                } else if (args[next].startsWith("--effort=")) {
+                    effort = Integer.parseInt(args[next].substring(9));
+                    lz77Options = true;
+                    if (effort < Lz77.MIN_EFFORT || effort > Lz77.MAX_EFFORT) {
+                        printUsage();
+                        return;
+                    }
+                } else if (args[next].equals("--bwt")) {
+                    bwt = true;
+                } else if (args[next].startsWith("--block=")) {
+                    blockSize = Integer.parseInt(args[next].substring(8));
+                    bwtOptions = true;
+                    if (blockSize <= 0 || blockSize > Bwt.MAX_BLOCK_SIZE) {
+                        printUsage();
+                        return;
+                    }
+                } else {
+                    printUsage();
+                    return;
+                }
+            } catch (NumberFormatException e) {
+                printUsage();
+                return;
+            }
+            next++;
+        }
+        if ((lz77 || bwt) && sampleFraction < 1 || lz77 && bwt || lz77Options && !lz77
+                || bwtOptions && !bwt) {
+            printUsage();
+            return;
+        }
+        if (args.length != next + 2) {
+            printUsage();
             return;
         }
         if (!args[0].equals("encode") && !args[0].equals("decode")) {
-            System.out.println("Usage: java Grin <encode|decode> <infile> <outfile>");
+            printUsage();
             return;
         }
-        if (args[0].equals("encode")) {
-            encode("files/" + args[1], "files/" + args[2]);
+        if (args[0].equals("encode") && bwt) {
+            encodeBwt("files/" + args[next], "files/" + args[next + 1], checksum, blockSize);
+        } else if (args[0].equals("encode") && lz77) {
+            encodeLz77("files/" + args[next], "files/" + args[next + 1], checksum, windowBits,
+                    effort);
+        } else if (args[0].equals("encode") && sampleFraction < 1) {
+            SampleReport report = encodeSampled("files/" + args[next], "files/" + args[next + 1],
+                    checksum, sampleFraction);
+            System.out.printf("Sampled %.2f%% of input: %d bits vs %d bits exact (%+.3f%%)%n",
+                    sampleFraction * 100, report.sampledBits(), report.exactBits(),
+                    report.loss() * 100);
+        } else if (args[0].equals("encode")) {
+            encode("files/" + args[next], "files/" + args[next + 1], checksum);
         } else {
-            decode("files/" + args[1], "files/" + args[2]);
+            decode("files/" + args[next], "files/" + args[next + 1]);
         }
     }
 }
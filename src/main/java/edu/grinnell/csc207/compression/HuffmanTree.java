@@ -20,28 +20,36 @@ import java.util.function.BiConsumer;
  */
 public class HuffmanTree {
 
+    /**
+     * One more than the largest value that fits in the 9 bits used to
+     * store a value in a serialized tree.
+     */
+    private static final int MAX_SYMBOLS = 512;
+
     private PriorityQueue<Node> queue;
 
     private Node root;
 
+    private BitCode[] codes;
+
     private class Node {
 
         private short bits;
 
-        private int frequency;
+        private long frequency;
 
         private Node left;
 
         private Node right;
 
-        public Node(short bits, int frequency, Node left, Node right) {
+        public Node(short bits, long frequency, Node left, Node right) {
             this.bits = bits;
             this.frequency = frequency;
             this.left = left;
             this.right = right;
         }
 
-        public Node(short bits, int frequency) {
+        public Node(short bits, long frequency) {
             this(bits, frequency, null, null);
         }
 
@@ -89,9 +97,34 @@ public class HuffmanTree {
      */
     public HuffmanTree(Map<Short, Integer> freqs) {
         queue = new PriorityQueue<>(new CompareNodes());
+        freqs.forEach(new Enqueue());
+        build();
+    }
+
+    /**
+     * Constructs a new HuffmanTree from an array of frequencies, where the
+     * frequency of each 9-bit value is at its index. Values with a
+     * frequency of zero are left out of the tree.
+     * 
+     * @param freqs the frequency of each 9-bit value.
+     */
+    public HuffmanTree(long[] freqs) {
+        queue = new PriorityQueue<>(new CompareNodes());
+        for (int i = 0; i < freqs.length; i++) {
+            if (freqs[i] > 0) {
+                queue.add(new Node((short) i, freqs[i]));
+            }
+        }
+        build();
+    }
+
+    /**
+     * Adds the EOF value to the queue of leaves and combines the leaves
+     * into a tree.
+     */
+    private void build() {
         Node eofNode = new Node((short) 256, 1);
         queue.add(eofNode);
-        freqs.forEach(new Enqueue());
         while (queue.size() > 1) {
             Node newNode = new Node(queue.poll(), queue.poll());
             queue.add(newNode);
@@ -106,12 +139,24 @@ public class HuffmanTree {
      */
     public HuffmanTree(BitInputStream in) {
         Stack<Node> path = new Stack<>();
-        Node root = null;
         int bit = in.readBit();
-        if (bit != 1) {
+        if (bit == 0) {
+            // A tree holding only EOF is a single leaf. Any other lone leaf
+            // would decode forever, since its code takes no bits
+            int bitSequence = in.readBits(9);
+            if (bitSequence < 0) {
+                throw new IllegalArgumentException();
+            }
+            if (bitSequence != 256) {
+                throw new IllegalArgumentException("Single-leaf tree without EOF: " + bitSequence);
+            }
+            this.root = new Node((short) bitSequence);
+            return;
+        } else if (bit != 1) {
             throw new IllegalArgumentException();
         }
         Node newNode = new Node();
+        this.root = newNode;
         path.push(newNode);
         while (!path.isEmpty()) {
             if (path.peek().left == null) {
@@ -148,11 +193,9 @@ public class HuffmanTree {
                     throw new IllegalArgumentException();
                 }
             } else {
-                root = path.pop();
+                path.pop();
             }
         }
-        this.root = root;
-        return;
     }
 
     /**
@@ -192,24 +235,67 @@ public class HuffmanTree {
      * @param out the file to write the compressed output to.
      */
     public void encode(BitInputStream in, BitOutputStream out) {
-        BitCode toWrite;
+        encode(in, out, null);
+    }
+
+    /**
+     * Encodes the file given as a stream of bits like <code>encode</code>,
+     * also adding the encoded bytes to the given checksums.
+     * 
+     * @param in        the file to compress.
+     * @param out       the file to write the compressed output to.
+     * @param checksums the checksums to add the data to, or null to skip
+     *                  checksumming.
+     */
+    public void encode(BitInputStream in, BitOutputStream out, BlockChecksums checksums) {
         while (in.hasBits()) {
             short bits = (short) in.readBits(8);
-            toWrite = findCode(bits);
-            out.writeBits(toWrite.bits, toWrite.numBits);
+            writeCode(out, findCode(bits));
+            if (checksums != null) {
+                checksums.add(bits);
+            }
         }
-        toWrite = findCode((short) 256);
-        out.writeBits(toWrite.bits, toWrite.numBits);
+        writeCode(out, findCode((short) 256));
         in.close();
         out.close();
     }
 
+    /**
+     * Writes the code for the given bit sequence to the given file. The bit
+     * sequence may be any value in this tree, not only a byte.
+     * 
+     * @param out  the file to write the code to.
+     * @param bits the bit sequence being encoded.
+     * @throws IllegalArgumentException if the bit sequence is not in this
+     *                                  tree
+     */
+    public void encodeBitSequence(BitOutputStream out, short bits) {
+        writeCode(out, findCode(bits));
+    }
+
+    /**
+     * Computes the number of bits that this tree would use to encode data
+     * with the given frequencies, including the EOF code.
+     * 
+     * @param freqs the frequency of each 9-bit value, not counting EOF.
+     * @return the length of the encoded data in bits
+     */
+    public long encodedLength(long[] freqs) {
+        long length = findCode((short) 256).numBits;
+        for (int i = 0; i < freqs.length; i++) {
+            if (freqs[i] > 0) {
+                length += findCode((short) i).numBits * freqs[i];
+            }
+        }
+        return length;
+    }
+
     /**
      * Class to hold a code for a bit sequence as well as the number of bits
      * in the code, so that we understand what's going on, even with
      * leading zeroes.
      */
-    private record BitCode(short bits, int numBits) {
+    private record BitCode(long bits, int numBits) {
     }
 
     /**
@@ -218,38 +304,50 @@ public class HuffmanTree {
      * @param bits the bit sequence being encoded
      * @return a <code>bitCode</code> object containing the appropriate
      *         code and bit count
+     * @throws IllegalArgumentException if the bit sequence is not in this
+     *                                  tree
      */
     private BitCode findCode(short bits) {
-        BitCode ret = findCodeH(bits, root.left, (short) 0, 1);
-        if (ret.bits < 0) {
-            ret = findCodeH(bits, root, (short) 1, 0);
-            // I have no idea why numBits should be 0 here, but it fixed it (mostly)
+        if (codes == null) {
+            codes = new BitCode[MAX_SYMBOLS];
+            buildCodes(root, 0, 0);
+        }
+        if (bits < 0 || bits >= MAX_SYMBOLS || codes[bits] == null) {
+            throw new IllegalArgumentException("No code for " + bits);
         }
-        return ret;
+        return codes[bits];
     }
 
     /**
-     * Recursive helper for <code>findCode</code>.
+     * Recursive helper for <code>findCode</code> that fills in the code
+     * of every leaf under the given node.
      * 
-     * @param bits     the bit sequence being encoded.
      * @param curr     the node at which we are searching.
      * @param currCode the bit code for the current node.
      * @param numBits  the number of bits in this node's code.
-     * @return a <code>bitCode</code> object containing the appropriate
-     *         code and bit count, or containing -1 and -1 if the bit sequence
-     *         was not found.
      */
-    private BitCode findCodeH(short bits, Node curr, short currCode, int numBits) {
-        if (curr.bits == bits) {
-            return new BitCode(currCode, numBits);
-        } else if (curr.bits >= 0) {
-            return new BitCode((short) -1, -1);
+    private void buildCodes(Node curr, long currCode, int numBits) {
+        if (curr.bits >= 0) {
+            codes[curr.bits] = new BitCode(currCode, numBits);
         } else {
-            BitCode toWrite = findCodeH(bits, curr.left, (short) (currCode * 2), numBits + 1);
-            if (toWrite.bits < 0) {
-                toWrite = findCodeH(bits, curr.right, (short) ((currCode * 2) + 1), numBits + 1);
-            }
-            return toWrite;
+            buildCodes(curr.left, currCode * 2, numBits + 1);
+            buildCodes(curr.right, (currCode * 2) + 1, numBits + 1);
+        }
+    }
+
+    /**
+     * Writes the given code to the given file. Codes may be longer than
+     * the 32 bits that <code>writeBits</code> can handle at once.
+     * 
+     * @param out  the file to write the code to.
+     * @param code the code to write.
+     */
+    private void writeCode(BitOutputStream out, BitCode code) {
+        if (code.numBits > 32) {
+            out.writeBits((int) (code.bits >>> 32), code.numBits - 32);
+            out.writeBits((int) code.bits, 32);
+        } else {
+            out.writeBits((int) code.bits, code.numBits);
         }
     }
 
@@ -263,22 +361,44 @@ public class HuffmanTree {
      * @param out the file to write the decompressed output to.
      */
     public void decode(BitInputStream in, BitOutputStream out) {
+        decode(in, out, null);
+    }
+
+    /**
+     * Decodes a stream of huffman codes like <code>decode</code>, also
+     * checking the decoded bytes against the given checksums.
+     * 
+     * @param in        the file to decompress.
+     * @param out       the file to write the decompressed output to.
+     * @param checksums the checksums of the decompressed data, or null to
+     *                  skip checking.
+     * @throws IllegalArgumentException if the decompressed data does not
+     *                                  match the checksums
+     */
+    public void decode(BitInputStream in, BitOutputStream out, BlockChecksums checksums) {
         short bits = decodeBitSequence(in);
         while (bits != 256) {
             out.writeBits(bits, 8);
+            if (checksums != null) {
+                checksums.update(bits);
+            }
             bits = decodeBitSequence(in);
         }
         in.close();
         out.close();
+        if (checksums != null) {
+            checksums.finish();
+        }
     }
 
     /**
      * Decodes the first Huffman code in <code>in</code>.
      * 
      * @param in the file to read from.
-     * @return the bit sequence corresponding to the code read.
+     * @return the bit sequence corresponding to the code read, or 256 (EOF)
+     *         if the file runs out of bits.
      */
-    private short decodeBitSequence(BitInputStream in) {
+    public short decodeBitSequence(BitInputStream in) {
         Node curr = root;
         short bit;
         while (curr.bits < 0) {
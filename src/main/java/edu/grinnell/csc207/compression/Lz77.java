@@ -0,0 +1,531 @@
+package edu.grinnell.csc207.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * An Lz77 compresses data by replacing repeated strings with references to
+ * an earlier copy, in the style of deflate, before coding the result with
+ * Huffman trees.
+ *
+ * The data is turned into a sequence of literal bytes and (length,
+ * distance) pairs. Literals, EOF (256), and length codes (257--285) share
+ * one Huffman tree, and distance codes (0--29) have a second tree. Both
+ * alphabets fit in the 9 bits used by a serialized HuffmanTree. Lengths
+ * and distances that share a code are told apart by extra bits written
+ * after the code.
+ *
+ * The input is read through a buffer a few windows long, and the codes
+ * are written in blocks of a bounded number of literals and matches, so
+ * the encoder uses the same amount of memory for any size of input.
+ * Matches may reach back into earlier blocks.
+ *
+ * An encoded stream is the window size as a power of two (4 bits), then
+ * for each block a 1 bit, the literal/length tree, the distance tree, and
+ * the codes, ending with the EOF code. A 0 bit follows the last block.
+ */
+public class Lz77 {
+
+    /**
+     * The shortest match worth replacing with a (length, distance) pair.
+     */
+    public static final int MIN_MATCH = 3;
+
+    /**
+     * The longest match a single (length, distance) pair can describe.
+     */
+    public static final int MAX_MATCH = 258;
+
+    /**
+     * The smallest supported window, as a power of two.
+     */
+    public static final int MIN_WINDOW_BITS = 8;
+
+    /**
+     * The largest supported window, as a power of two. Distance codes cannot
+     * describe anything further back.
+     */
+    public static final int MAX_WINDOW_BITS = 15;
+
+    /**
+     * The window size used unless otherwise specified, as a power of two.
+     */
+    public static final int DEFAULT_WINDOW_BITS = 15;
+
+    /**
+     * The smallest supported effort level.
+     */
+    public static final int MIN_EFFORT = 1;
+
+    /**
+     * The largest supported effort level.
+     */
+    public static final int MAX_EFFORT = 9;
+
+    /**
+     * The effort level used unless otherwise specified.
+     */
+    public static final int DEFAULT_EFFORT = 5;
+
+    /**
+     * The first literal/length value used for length codes.
+     */
+    private static final int FIRST_LENGTH_CODE = 257;
+
+    private static final int[] LENGTH_BASE = {
+        3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+        35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258
+    };
+
+    private static final int[] LENGTH_EXTRA = {
+        0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+        3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0
+    };
+
+    private static final int[] DISTANCE_BASE = {
+        1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+        257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577
+    };
+
+    private static final int[] DISTANCE_EXTRA = {
+        0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+        7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13
+    };
+
+    /**
+     * How many candidates the match finder examines at each position, by
+     * effort level.
+     */
+    private static final int[] MAX_CHAIN = {4, 8, 16, 32, 64, 128, 256, 1024, 4096};
+
+    /**
+     * The match length at which the match finder stops looking for a
+     * longer one, by effort level.
+     */
+    private static final int[] NICE_LENGTH = {8, 16, 32, 64, 128, 128, 258, 258, 258};
+
+    /**
+     * The lowest effort level at which a match is put off by one byte when
+     * the next position has a longer one.
+     */
+    private static final int LAZY_EFFORT = 4;
+
+    private static final int HASH_BITS = 15;
+
+    /**
+     * The most literals and matches in one block.
+     */
+    private static final int BLOCK_TOKENS = 1 << 16;
+
+    private int windowBits;
+
+    private int effort;
+
+    private InputStream input;
+
+    private BlockChecksums checksums;
+
+    private boolean atEof;
+
+    private byte[] data;
+
+    private int end;
+
+    private int position;
+
+    private int[] tokens;
+
+    private int count;
+
+    private int[] head;
+
+    private int[] prev;
+
+    private int inserted;
+
+    private int matchLength;
+
+    private int matchDistance;
+
+    /**
+     * Constructs a new Lz77 encoder.
+     *
+     * @param windowBits the window size as a power of two, between
+     *                   MIN_WINDOW_BITS and MAX_WINDOW_BITS
+     * @param effort     how hard to look for matches, between MIN_EFFORT
+     *                   and MAX_EFFORT
+     */
+    public Lz77(int windowBits, int effort) {
+        if (windowBits < MIN_WINDOW_BITS || windowBits > MAX_WINDOW_BITS) {
+            throw new IllegalArgumentException("Invalid window size: " + windowBits);
+        }
+        if (effort < MIN_EFFORT || effort > MAX_EFFORT) {
+            throw new IllegalArgumentException("Invalid effort level: " + effort);
+        }
+        this.windowBits = windowBits;
+        this.effort = effort;
+    }
+
+    /**
+     * Encodes the data from the given stream and writes it to the given
+     * file.
+     *
+     * @param in        the data to compress.
+     * @param out       the file to write the compressed output to.
+     * @param checksums the checksums to add the data to as it is read, or
+     *                  null to skip checksumming.
+     * @throws IOException if the data cannot be read
+     */
+    public void encode(InputStream in, BitOutputStream out, BlockChecksums checksums)
+            throws IOException {
+        this.input = in;
+        this.checksums = checksums;
+        this.atEof = false;
+        this.data = new byte[4 << windowBits];
+        this.end = 0;
+        this.position = 0;
+        this.head = new int[1 << HASH_BITS];
+        this.prev = new int[1 << windowBits];
+        this.inserted = 0;
+        this.tokens = new int[BLOCK_TOKENS];
+        this.count = 0;
+        Arrays.fill(head, -1);
+        Arrays.fill(prev, -1);
+        out.writeBits(windowBits, 4);
+        boolean lazy = effort >= LAZY_EFFORT;
+        fill();
+        while (position < end) {
+            if (count + 2 > tokens.length) {
+                writeBlock(out);
+            }
+            findMatch(position);
+            int length = matchLength;
+            int distance = matchDistance;
+            if (length >= MIN_MATCH && lazy && length < NICE_LENGTH[effort - 1]) {
+                findMatch(position + 1);
+                if (matchLength > length) {
+                    tokens[count] = data[position] & 0xFF;
+                    count++;
+                    position++;
+                    length = matchLength;
+                    distance = matchDistance;
+                }
+            }
+            if (length >= MIN_MATCH) {
+                tokens[count] = (length << windowBits) | (distance - 1);
+                count++;
+                position += length;
+            } else {
+                tokens[count] = data[position] & 0xFF;
+                count++;
+                position++;
+            }
+            fill();
+        }
+        if (count > 0) {
+            writeBlock(out);
+        }
+        out.writeBit(0);
+        out.close();
+        this.input = null;
+        this.checksums = null;
+        this.data = null;
+        this.head = null;
+        this.prev = null;
+        this.tokens = null;
+    }
+
+    /**
+     * Reads more input until there is room for the longest match (and one
+     * more byte for lazy matching) after the current position, or the input
+     * runs out. Slides the buffer down when it is full.
+     *
+     * @throws IOException if the data cannot be read
+     */
+    private void fill() throws IOException {
+        while (!atEof && end - position < MAX_MATCH + 2) {
+            if (end == data.length) {
+                slide();
+            }
+            int wanted = data.length - end;
+            int read = input.readNBytes(data, end, wanted);
+            if (checksums != null) {
+                checksums.add(data, end, read);
+            }
+            end += read;
+            if (read < wanted) {
+                atEof = true;
+            }
+        }
+    }
+
+    /**
+     * Drops the start of the buffer that is out of reach of the window,
+     * moving everything after it down. Only whole windows are dropped, so
+     * positions keep their slots in prev.
+     */
+    private void slide() {
+        insertUpTo(position);
+        int window = prev.length;
+        int shift = (position - window) / window * window;
+        System.arraycopy(data, shift, data, 0, end - shift);
+        end -= shift;
+        position -= shift;
+        inserted -= shift;
+        for (int i = 0; i < head.length; i++) {
+            head[i] = head[i] >= shift ? head[i] - shift : -1;
+        }
+        for (int i = 0; i < prev.length; i++) {
+            prev[i] = prev[i] >= shift ? prev[i] - shift : -1;
+        }
+    }
+
+    /**
+     * Huffman codes the literals and matches found so far as one block and
+     * writes it to the given file.
+     *
+     * @param out the file to write the block to.
+     */
+    private void writeBlock(BitOutputStream out) {
+        long[] literalFreqs = new long[FIRST_LENGTH_CODE + LENGTH_BASE.length];
+        long[] distanceFreqs = new long[DISTANCE_BASE.length];
+        for (int i = 0; i < count; i++) {
+            if (tokens[i] < 256) {
+                literalFreqs[tokens[i]]++;
+            } else {
+                literalFreqs[FIRST_LENGTH_CODE + lengthCode(tokenLength(tokens[i]))]++;
+                distanceFreqs[distanceCode(tokenDistance(tokens[i]))]++;
+            }
+        }
+        HuffmanTree literalTree = new HuffmanTree(literalFreqs);
+        HuffmanTree distanceTree = new HuffmanTree(distanceFreqs);
+        out.writeBit(1);
+        literalTree.serialize(out);
+        distanceTree.serialize(out);
+        for (int i = 0; i < count; i++) {
+            int token = tokens[i];
+            if (token < 256) {
+                literalTree.encodeBitSequence(out, (short) token);
+            } else {
+                int length = tokenLength(token);
+                int code = lengthCode(length);
+                literalTree.encodeBitSequence(out, (short) (FIRST_LENGTH_CODE + code));
+                out.writeBits(length - LENGTH_BASE[code], LENGTH_EXTRA[code]);
+                int distance = tokenDistance(token);
+                code = distanceCode(distance);
+                distanceTree.encodeBitSequence(out, (short) code);
+                out.writeBits(distance - DISTANCE_BASE[code], DISTANCE_EXTRA[code]);
+            }
+        }
+        literalTree.encodeBitSequence(out, (short) 256);
+        count = 0;
+    }
+
+    /**
+     * Decodes an Lz77 stream from the given file, writing the decompressed
+     * bytes to the given output stream.
+     *
+     * @param in        the file to decompress.
+     * @param out       the file to write the decompressed output to.
+     * @param checksums the checksums of the decompressed data, or null to
+     *                  skip checking.
+     * @throws IllegalArgumentException if the stream is malformed or the
+     *                                  decompressed data does not match
+     *                                  the checksums
+     */
+    public static void decode(BitInputStream in, BitOutputStream out, BlockChecksums checksums) {
+        int windowBits = in.readBits(4);
+        if (windowBits < MIN_WINDOW_BITS || windowBits > MAX_WINDOW_BITS) {
+            throw new IllegalArgumentException("Invalid window size: " + windowBits);
+        }
+        byte[] window = new byte[1 << windowBits];
+        int mask = window.length - 1;
+        long position = 0;
+        int more = in.readBit();
+        while (more == 1) {
+            HuffmanTree literalTree = new HuffmanTree(in);
+            HuffmanTree distanceTree = new HuffmanTree(in);
+            short symbol = literalTree.decodeBitSequence(in);
+            while (symbol != 256) {
+                if (symbol < 256) {
+                    window[(int) position & mask] = (byte) symbol;
+                    position++;
+                    out.writeBits(symbol, 8);
+                    if (checksums != null) {
+                        checksums.update(symbol);
+                    }
+                } else {
+                    int code = symbol - FIRST_LENGTH_CODE;
+                    if (code >= LENGTH_BASE.length) {
+                        throw new IllegalArgumentException("Invalid length code: " + symbol);
+                    }
+                    int length = LENGTH_BASE[code] + readExtra(in, LENGTH_EXTRA[code]);
+                    code = distanceTree.decodeBitSequence(in);
+                    if (code >= DISTANCE_BASE.length) {
+                        throw new IllegalArgumentException("Invalid distance code: " + code);
+                    }
+                    int distance = DISTANCE_BASE[code] + readExtra(in, DISTANCE_EXTRA[code]);
+                    if (distance > window.length || distance > position) {
+                        throw new IllegalArgumentException("Distance out of range: " + distance);
+                    }
+                    for (int i = 0; i < length; i++) {
+                        byte bits = window[(int) (position - distance) & mask];
+                        window[(int) position & mask] = bits;
+                        position++;
+                        out.writeBits(bits, 8);
+                        if (checksums != null) {
+                            checksums.update(bits);
+                        }
+                    }
+                }
+                symbol = literalTree.decodeBitSequence(in);
+            }
+            more = in.readBit();
+        }
+        if (more != 0) {
+            throw new IllegalArgumentException("Truncated block stream");
+        }
+        in.close();
+        out.close();
+        if (checksums != null) {
+            checksums.finish();
+        }
+    }
+
+    /**
+     * Reads the extra bits that follow a length or distance code.
+     *
+     * @param in the file to read from.
+     * @param n  the number of extra bits.
+     * @return the value of the extra bits
+     */
+    private static int readExtra(BitInputStream in, int n) {
+        int extra = in.readBits(n);
+        if (extra < 0) {
+            throw new IllegalArgumentException("Truncated extra bits");
+        }
+        return extra;
+    }
+
+    /**
+     * Finds the longest earlier copy of the data starting at the given
+     * position, following the hash chain of its first three bytes. Sets
+     * matchLength and matchDistance, with a matchLength of 0 if there is
+     * no usable match.
+     *
+     * @param position the position to find a match for.
+     */
+    private void findMatch(int position) {
+        matchLength = 0;
+        matchDistance = 0;
+        if (position + MIN_MATCH > end) {
+            return;
+        }
+        insertUpTo(position);
+        int limit = Math.min(MAX_MATCH, end - position);
+        int nice = Math.min(NICE_LENGTH[effort - 1], limit);
+        int mask = prev.length - 1;
+        int chain = MAX_CHAIN[effort - 1];
+        int candidate = head[hash(position)];
+        while (candidate >= 0 && position - candidate <= prev.length && chain > 0) {
+            if (matchLength == 0
+                    || data[candidate + matchLength] == data[position + matchLength]) {
+                int length = 0;
+                while (length < limit && data[candidate + length] == data[position + length]) {
+                    length++;
+                }
+                if (length > matchLength) {
+                    matchLength = length;
+                    matchDistance = position - candidate;
+                    if (length >= nice) {
+                        break;
+                    }
+                }
+            }
+            candidate = prev[candidate & mask];
+            chain--;
+        }
+        if (matchLength < MIN_MATCH) {
+            matchLength = 0;
+            matchDistance = 0;
+        }
+    }
+
+    /**
+     * Adds every position before the given one to the hash chains.
+     *
+     * @param position the position to stop before.
+     */
+    private void insertUpTo(int position) {
+        int mask = prev.length - 1;
+        while (inserted < position) {
+            if (inserted + MIN_MATCH <= end) {
+                int h = hash(inserted);
+                prev[inserted & mask] = head[h];
+                head[h] = inserted;
+            }
+            inserted++;
+        }
+    }
+
+    /**
+     * Hashes the three bytes starting at the given position.
+     *
+     * @param position the position of the bytes.
+     * @return the hash of the bytes
+     */
+    private int hash(int position) {
+        int bytes = ((data[position] & 0xFF) << 16) | ((data[position + 1] & 0xFF) << 8)
+                | (data[position + 2] & 0xFF);
+        return (bytes * 0x9E3779B1) >>> (32 - HASH_BITS);
+    }
+
+    /**
+     * Gets the length of a match token.
+     *
+     * @param token the token.
+     * @return the length of the match
+     */
+    private int tokenLength(int token) {
+        return token >>> windowBits;
+    }
+
+    /**
+     * Gets the distance of a match token.
+     *
+     * @param token the token.
+     * @return the distance of the match
+     */
+    private int tokenDistance(int token) {
+        return (token & ((1 << windowBits) - 1)) + 1;
+    }
+
+    /**
+     * Finds the length code for a match length.
+     *
+     * @param length the match length.
+     * @return the index of the length's code
+     */
+    private static int lengthCode(int length) {
+        int code = LENGTH_BASE.length - 1;
+        while (LENGTH_BASE[code] > length) {
+            code--;
+        }
+        return code;
+    }
+
+    /**
+     * Finds the distance code for a match distance.
+     *
+     * @param distance the match distance.
+     * @return the index of the distance's code
+     */
+    private static int distanceCode(int distance) {
+        int code = DISTANCE_BASE.length - 1;
+        while (DISTANCE_BASE[code] > distance) {
+            code--;
+        }
+        return code;
+    }
+}
@@ -1,5 +1,19 @@
 package edu.grinnell.csc207.compression;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
 public class Tests {
     // I really didn't know what to do in terms of unit testing for this project,
     // especially given that the Java standard PriorityQueue doesn't guarantee any
@@ -10,4 +24,206 @@ public class Tests {
     // I am fully aware that it isn't quite perfect, but I have no idea why it
     // encodes an extra character at the end of War and Peace, but not the other
     // files.
+    // The tests below don't look at the trees themselves, only at whether every
+    // kind of .grin file gets back exactly what was encoded.
+
+    @TempDir
+    Path dir;
+
+    /**
+     * One of the ways of encoding a file.
+     */
+    private interface Encoder {
+        void encode(String infile, String outfile) throws IOException;
+    }
+
+    /**
+     * Inputs that have broken the encoder or decoder before: nothing, a single
+     * byte, a single repeated byte, highly repetitive data, mostly one byte,
+     * random data, and ordinary text.
+     */
+    private static List<byte[]> inputs() {
+        Random random = new Random(207);
+        byte[] mostlyZeros = new byte[70000];
+        for (int i = 0; i < mostlyZeros.length; i += 97) {
+            mostlyZeros[i] = (byte) random.nextInt(256);
+        }
+        byte[] noise = new byte[100000];
+        random.nextBytes(noise);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append("Line ").append(i).append(": the quick brown fox jumps over ")
+                    .append(random.nextInt(1000)).append(" lazy dogs\r\n");
+        }
+        return List.of(
+                new byte[0],
+                new byte[] {'a'},
+                "a".repeat(100).getBytes(StandardCharsets.US_ASCII),
+                "abc".repeat(8).getBytes(StandardCharsets.US_ASCII),
+                new byte[70000],
+                mostlyZeros,
+                noise,
+                text.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void assertRoundTrip(Encoder encoder, boolean checksum) throws IOException {
+        for (byte[] input : inputs()) {
+            Path infile = dir.resolve("in.txt");
+            Path grin = dir.resolve("out.grin");
+            Path outfile = dir.resolve("out.txt");
+            Files.write(infile, input);
+            encoder.encode(infile.toString(), grin.toString());
+            Grin.decode(grin.toString(), outfile.toString());
+            assertArrayEquals(input, Files.readAllBytes(outfile),
+                    "round trip of " + input.length + " bytes");
+            if (checksum) {
+                Grin.verify(grin.toString());
+            }
+        }
+    }
+
+    private void assertCorruptionDetected(Encoder encoder) throws IOException {
+        Path infile = dir.resolve("in.txt");
+        Path grin = dir.resolve("out.grin");
+        List<byte[]> inputs = inputs();
+        Files.write(infile, inputs.get(inputs.size() - 1));
+        encoder.encode(infile.toString(), grin.toString());
+        byte[] archive = Files.readAllBytes(grin);
+        archive[archive.length - 100] ^= 0x10;
+        Files.write(grin, archive);
+        assertThrows(IllegalArgumentException.class, () -> Grin.verify(grin.toString()));
+    }
+
+    @Test
+    public void plainRoundTrip() throws IOException {
+        assertRoundTrip(Grin::encode, false);
+    }
+
+    @Test
+    public void checksumRoundTrip() throws IOException {
+        assertRoundTrip((infile, outfile) -> Grin.encode(infile, outfile, true), true);
+    }
+
+    @Test
+    public void checksumCorruption() throws IOException {
+        assertCorruptionDetected((infile, outfile) -> Grin.encode(infile, outfile, true));
+    }
+
+    @Test
+    public void sampledRoundTrip() throws IOException {
+        assertRoundTrip((infile, outfile) -> Grin.encodeSampled(infile, outfile, false, 0.05),
+                false);
+        assertRoundTrip((infile, outfile) -> Grin.encodeSampled(infile, outfile, false, 0.5),
+                false);
+    }
+
+    @Test
+    public void sampledChecksumRoundTrip() throws IOException {
+        assertRoundTrip((infile, outfile) -> Grin.encodeSampled(infile, outfile, true, 0.05),
+                true);
+    }
+
+    @Test
+    public void sampledChecksumCorruption() throws IOException {
+        assertCorruptionDetected(
+                (infile, outfile) -> Grin.encodeSampled(infile, outfile, true, 0.05));
+    }
+
+    @Test
+    public void sampledReport() throws IOException {
+        for (byte[] input : inputs()) {
+            Path infile = dir.resolve("in.txt");
+            Files.write(infile, input);
+            Grin.SampleReport report = Grin.encodeSampled(infile.toString(),
+                    dir.resolve("out.grin").toString(), false, 0.05);
+            assertTrue(report.sampledBits() >= report.exactBits(),
+                    "sampled tree beat the exact tree on " + input.length + " bytes");
+        }
+    }
+
+    @Test
+    public void fullSampleCountsEveryByte() throws IOException {
+        Path infile = dir.resolve("in.txt");
+        Files.write(infile, inputs().get(4));
+        long[] freqs = Grin.createFrequencyMap(infile.toString(), 1);
+        assertEquals(70001, freqs[0]);
+        for (int bits = 1; bits < 256; bits++) {
+            assertEquals(1, freqs[bits]);
+        }
+    }
+
+    @Test
+    public void invalidSampleFraction() throws IOException {
+        Path infile = dir.resolve("in.txt");
+        Files.write(infile, inputs().get(3));
+        for (double fraction : new double[] {0, -1, 2, Double.NaN}) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> Grin.createFrequencyMap(infile.toString(), fraction));
+        }
+    }
+
+    @Test
+    public void lz77RoundTrip() throws IOException {
+        assertRoundTrip((infile, outfile) -> Grin.encodeLz77(infile, outfile, false,
+                Lz77.DEFAULT_WINDOW_BITS, Lz77.DEFAULT_EFFORT), false);
+        assertRoundTrip((infile, outfile) -> Grin.encodeLz77(infile, outfile, false,
+                Lz77.MIN_WINDOW_BITS, Lz77.MIN_EFFORT), false);
+        assertRoundTrip((infile, outfile) -> Grin.encodeLz77(infile, outfile, false,
+                Lz77.MIN_WINDOW_BITS, Lz77.MAX_EFFORT), false);
+    }
+
+    @Test
+    public void lz77ChecksumRoundTrip() throws IOException {
+        assertRoundTrip((infile, outfile) -> Grin.encodeLz77(infile, outfile, true,
+                Lz77.DEFAULT_WINDOW_BITS, Lz77.DEFAULT_EFFORT), true);
+    }
+
+    @Test
+    public void lz77ChecksumCorruption() throws IOException {
+        assertCorruptionDetected((infile, outfile) -> Grin.encodeLz77(infile, outfile, true,
+                Lz77.DEFAULT_WINDOW_BITS, Lz77.DEFAULT_EFFORT));
+    }
+
+    @Test
+    public void bwtRoundTrip() throws IOException {
+        assertRoundTrip((infile, outfile) -> Grin.encodeBwt(infile, outfile, false,
+                Bwt.DEFAULT_BLOCK_SIZE), false);
+        assertRoundTrip((infile, outfile) -> Grin.encodeBwt(infile, outfile, false, 1), false);
+        assertRoundTrip((infile, outfile) -> Grin.encodeBwt(infile, outfile, false, 3000),
+                false);
+    }
+
+    @Test
+    public void bwtChecksumRoundTrip() throws IOException {
+        assertRoundTrip((infile, outfile) -> Grin.encodeBwt(infile, outfile, true, 3000), true);
+    }
+
+    @Test
+    public void bwtChecksumCorruption() throws IOException {
+        assertCorruptionDetected((infile, outfile) -> Grin.encodeBwt(infile, outfile, true,
+                Bwt.DEFAULT_BLOCK_SIZE));
+    }
+
+    @Test
+    public void singleLeafWithoutEof() throws IOException {
+        // The magic number, then a tree that is only the leaf 'A'
+        Path grin = dir.resolve("leaf.grin");
+        Files.write(grin, new byte[] {0x00, 0x00, 0x07, 0x36, 0x20, (byte) 0x80});
+        assertThrows(IllegalArgumentException.class,
+                () -> Grin.decode(grin.toString(), dir.resolve("out.txt").toString()));
+    }
+
+    @Test
+    public void verifyWithoutChecksums() throws IOException {
+        Path infile = dir.resolve("in.txt");
+        Path grin = dir.resolve("out.grin");
+        Files.write(infile, inputs().get(3));
+        Grin.encode(infile.toString(), grin.toString());
+        assertThrows(IllegalArgumentException.class, () -> Grin.verify(grin.toString()));
+    }
+
+    @Test
+    public void verifyMissingFile() {
+        assertThrows(IOException.class, () -> Grin.verify(dir.resolve("none.grin").toString()));
+    }
 }